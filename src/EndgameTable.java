@@ -0,0 +1,431 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The EndgameTable class holds the exact distance to the goal of every state of a small "Sliding Puzzle" board shape.
+ * Each state is ranked to a dense index, and its distance (modulo 15) is stored as a nibble in a file that is
+ * memory-mapped after the first build. The file starts with a header holding a magic number, the format version,
+ * the board shape, the largest distance and a checksum of the distances, and it is rebuilt if any of them don't match.
+ * Since every move changes the distance by exactly one, a solution is found by repeatedly moving to the neighbour
+ * whose distance is one less.
+ * The table is used to solve small boards directly, and to finish larger boards once only their bottom-right
+ * corner is left unsolved.
+ */
+public class EndgameTable {
+    public static final int MAX_CELLS = 9;
+    private static final int MODULUS = 15;
+    private static final int UNREACHABLE = 0xF;
+    private static final int MAGIC = 0x45475442;  // "EGTB"
+    private static final int VERSION = 1;
+    /* Header layout: magic, version, rows, cols and largest distance as ints, followed by a CRC32 checksum as a long. */
+    private static final int MAX_DEPTH_OFFSET = 16;
+    private static final int CHECKSUM_OFFSET = 20;
+    private static final int HEADER_BYTES = 28;
+    private static final Map<String, EndgameTable> tables = new HashMap<>();
+
+    private final int rows;
+    private final int cols;
+    private final int cells;
+    private final int maxDepth;
+    private final ByteBuffer distances;
+
+    private EndgameTable(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.cells = rows * cols;
+        ByteBuffer file = load();
+        this.maxDepth = file.getInt(MAX_DEPTH_OFFSET);
+        this.distances = file.position(HEADER_BYTES).slice();
+    }
+
+    /**
+     * Returns the table of the given board shape, building it on first use.
+     *
+     * @param rows Number of rows of the board
+     * @param cols Number of columns of the board
+     * @return The table of the given shape, or null if the shape is too large to be tabulated
+     */
+    public static synchronized EndgameTable forShape(int rows, int cols) {
+        if(rows * cols < 2 || rows * cols > MAX_CELLS) {
+            return null;
+        }
+        String key = rows + "x" + cols;
+        EndgameTable table = tables.get(key);
+        if(table == null) {
+            table = new EndgameTable(rows, cols);
+            tables.put(key, table);
+        }
+        return table;
+    }
+
+    /**
+     * Solves a state whose board has exactly the shape of this table.
+     *
+     * @param state The state to solve
+     * @return List of actions which performing them will lead to the goal state, or null if the state is unsolvable
+     */
+    public List<Action> solve(State state) {
+        Tile[][] tiles = state.getBoard().getTiles();
+        int[] labels = new int[cells];
+        int[] values = new int[cells];
+        for(int i = 0; i < rows; i++) {
+            for(int j = 0; j < cols; j++) {
+                int value = tiles[i][j].getValue();
+                labels[i * cols + j] = (value == 0) ? cells - 1 : value - 1;
+                values[i * cols + j] = value;
+            }
+        }
+        return descend(labels, values);
+    }
+
+    /**
+     * Solves a state of a larger board in which every tile outside the bottom-right corner of this table's shape
+     * is already in its goal position, using only moves inside that corner.
+     *
+     * @param state The state to solve
+     * @return List of actions which performing them will lead to the goal state, or null if the corner can't be solved
+     */
+    public List<Action> solveCorner(State state) {
+        Tile[][] tiles = state.getBoard().getTiles();
+        int boardRows = tiles.length;
+        int boardCols = tiles[0].length;
+        int firstRow = boardRows - rows;
+        int firstCol = boardCols - cols;
+
+        /* Check that every tile outside the corner is in its goal position. */
+        for(int i = 0; i < boardRows; i++) {
+            for(int j = 0; j < boardCols; j++) {
+                if((i < firstRow || j < firstCol) && tiles[i][j].getValue() != i * boardCols + j + 1) {
+                    return null;
+                }
+            }
+        }
+
+        /* Label each corner tile by its goal position inside the corner. */
+        int[] labels = new int[cells];
+        int[] values = new int[cells];
+        for(int i = 0; i < rows; i++) {
+            for(int j = 0; j < cols; j++) {
+                int value = tiles[firstRow + i][firstCol + j].getValue();
+                if(value == 0) {
+                    labels[i * cols + j] = cells - 1;
+                } else {
+                    int goalRow = (value - 1) / boardCols;
+                    int goalCol = (value - 1) % boardCols;
+                    if(goalRow < firstRow || goalCol < firstCol) {
+                        return null;
+                    }
+                    labels[i * cols + j] = (goalRow - firstRow) * cols + (goalCol - firstCol);
+                }
+                values[i * cols + j] = value;
+            }
+        }
+        return descend(labels, values);
+    }
+
+    /**
+     * Walks down the table from a given permutation to the goal permutation.
+     *
+     * @param labels Goal position of the tile in each cell, where the empty tile has the last position
+     * @param values Value of the tile in each cell
+     * @return List of actions leading to the goal, or null if the goal is unreachable
+     * @throws IllegalStateException if the table is inconsistent and doesn't lead to the goal
+     */
+    private List<Action> descend(int[] labels, int[] values) {
+        int rank = rank(labels);
+        int distance = getNibble(rank);
+        if(distance == UNREACHABLE) {
+            return null;
+        }
+
+        List<Action> actions = new ArrayList<>();
+        while(rank != 0) {
+            if(actions.size() >= maxDepth) {  // No state is further than maxDepth from the goal
+                throw new IllegalStateException("Endgame table " + rows + "x" + cols + " doesn't lead to the goal");
+            }
+            int empty = indexOf(labels, cells - 1);
+            int next = (distance + MODULUS - 1) % MODULUS;
+            boolean found = false;
+            for(int neighbour : neighbours(empty)) {
+                swap(labels, empty, neighbour);
+                int neighbourRank = rank(labels);
+                if(getNibble(neighbourRank) == next) {
+                    actions.add(new Action(new Tile(values[neighbour]), direction(empty, neighbour)));
+                    swap(values, empty, neighbour);
+                    rank = neighbourRank;
+                    distance = next;
+                    found = true;
+                    break;
+                }
+                swap(labels, empty, neighbour);
+            }
+            if(!found) {
+                throw new IllegalStateException("Endgame table " + rows + "x" + cols + " doesn't lead to the goal");
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * Loads the table from its file, building and storing it first if it is missing or invalid.
+     * If the file can't be written or mapped, the table is kept on the heap instead.
+     * The file is stored under the endgame.dir system property, or under the user's home directory by default.
+     *
+     * @return Buffer holding the header followed by two distances per byte
+     */
+    private ByteBuffer load() {
+        String defaultDir = Paths.get(System.getProperty("user.home"), ".sliding-puzzle", "endgame").toString();
+        Path dir = Paths.get(System.getProperty("endgame.dir", defaultDir));
+        Path file = dir.resolve("endgame-" + rows + "x" + cols + ".tbl");
+        byte[] built = null;
+        try {
+            if(Files.exists(file) && Files.size(file) == HEADER_BYTES + dataLength()) {
+                ByteBuffer mapped = map(file);
+                if(isValid(mapped)) {
+                    return mapped;
+                }
+            }
+
+            /* The file is missing, stale or corrupted - rebuild it. */
+            built = build();
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir, "endgame", ".tmp");
+            try {
+                Files.write(temp, built);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);  // Nothing left to delete after a successful move
+            }
+            ByteBuffer mapped = map(file);
+            if(isValid(mapped)) {
+                return mapped;
+            }
+            return ByteBuffer.wrap(built);  // The file was changed after it was written
+        } catch(IOException e) {  // Can't use the file system - keep the table in memory
+            return ByteBuffer.wrap(built != null ? built : build());
+        }
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Checks that a table file matches the current format and shape, and that its distances aren't corrupted.
+     *
+     * @param file Buffer holding the whole table file
+     * @return true if the table can be trusted, false otherwise
+     */
+    private boolean isValid(ByteBuffer file) {
+        if(file.capacity() != HEADER_BYTES + dataLength()) {
+            return false;
+        }
+        if(file.getInt(0) != MAGIC || file.getInt(4) != VERSION || file.getInt(8) != rows || file.getInt(12) != cols) {
+            return false;
+        }
+        int depth = file.getInt(MAX_DEPTH_OFFSET);
+        if(depth < 0 || depth > factorial(cells)) {
+            return false;
+        }
+        return file.getLong(CHECKSUM_OFFSET) == checksum(file.duplicate().position(HEADER_BYTES));
+    }
+
+    private static long checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private int dataLength() {
+        return (factorial(cells) + 1) / 2;
+    }
+
+    /**
+     * Computes the distance of every state from the goal using a Breadth First Search from the goal state.
+     * The goal is the identity permutation, matching the layout of Board.getGoalTiles().
+     *
+     * @return Array holding the header followed by two distances per byte
+     */
+    private byte[] build() {
+        int total = factorial(cells);
+        byte[] table = new byte[dataLength()];
+        Arrays.fill(table, (byte) 0xFF);  // Mark all states as unreachable
+
+        int[] queue = new int[total];
+        int head = 0;
+        int tail = 0;
+        setNibble(table, 0, 0);
+        queue[tail++] = 0;
+
+        int[] perm = new int[cells];
+        int depth = 0;
+        int deepest = 0;
+        while(head < tail) {
+            int levelEnd = tail;
+            depth++;
+            while(head < levelEnd) {
+                unrank(queue[head++], perm);
+                int empty = indexOf(perm, cells - 1);
+                for(int neighbour : neighbours(empty)) {
+                    swap(perm, empty, neighbour);
+                    int rank = rank(perm);
+                    if(getNibble(table, rank) == UNREACHABLE) {
+                        setNibble(table, rank, depth % MODULUS);
+                        queue[tail++] = rank;
+                        deepest = depth;
+                    }
+                    swap(perm, empty, neighbour);
+                }
+            }
+        }
+
+        ByteBuffer file = ByteBuffer.allocate(HEADER_BYTES + table.length);
+        file.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(cols).putInt(deepest);
+        file.putLong(checksum(ByteBuffer.wrap(table)));
+        file.put(table);
+        return file.array();
+    }
+
+    /**
+     * Ranks a permutation to a dense index in [0, n!) using its Lehmer code.
+     *
+     * @param perm The permutation to rank
+     * @return The index of the permutation, where the identity permutation has index 0
+     */
+    private int rank(int[] perm) {
+        int rank = 0;
+        for(int i = 0; i < perm.length; i++) {
+            int smaller = 0;
+            for(int j = i + 1; j < perm.length; j++) {
+                if(perm[j] < perm[i]) {
+                    smaller++;
+                }
+            }
+            rank = rank * (perm.length - i) + smaller;
+        }
+        return rank;
+    }
+
+    /**
+     * Converts an index back to its permutation. This is the inverse of rank.
+     *
+     * @param rank The index of the permutation
+     * @param perm Array to fill with the permutation
+     */
+    private void unrank(int rank, int[] perm) {
+        int n = perm.length;
+        int[] digits = new int[n];
+        for(int i = n - 1; i >= 0; i--) {
+            digits[i] = rank % (n - i);
+            rank /= (n - i);
+        }
+        boolean[] used = new boolean[n];
+        for(int i = 0; i < n; i++) {
+            int skip = digits[i];
+            int value = 0;
+            while(used[value] || skip > 0) {
+                if(!used[value]) {
+                    skip--;
+                }
+                value++;
+            }
+            used[value] = true;
+            perm[i] = value;
+        }
+    }
+
+    /**
+     * @return The cells adjacent to the given cell.
+     */
+    private int[] neighbours(int cell) {
+        int row = cell / cols;
+        int col = cell % cols;
+        int[] result = new int[4];
+        int count = 0;
+        if(row + 1 < rows) {
+            result[count++] = cell + cols;
+        }
+        if(row > 0) {
+            result[count++] = cell - cols;
+        }
+        if(col + 1 < cols) {
+            result[count++] = cell + 1;
+        }
+        if(col > 0) {
+            result[count++] = cell - 1;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return The direction in which the tile in the given cell moves into the empty cell.
+     */
+    private Direction direction(int empty, int tile) {
+        if(tile == empty + cols) {
+            return Direction.UP;
+        } else if(tile == empty - cols) {
+            return Direction.DOWN;
+        } else if(tile == empty + 1) {
+            return Direction.LEFT;
+        } else {
+            return Direction.RIGHT;
+        }
+    }
+
+    private int getNibble(int index) {
+        int b = distances.get(index / 2);
+        return (index % 2 == 0) ? (b & 0xF) : ((b >> 4) & 0xF);
+    }
+
+    private static int getNibble(byte[] table, int index) {
+        int b = table[index / 2];
+        return (index % 2 == 0) ? (b & 0xF) : ((b >> 4) & 0xF);
+    }
+
+    private static void setNibble(byte[] table, int index, int value) {
+        int b = table[index / 2];
+        if(index % 2 == 0) {
+            b = (b & 0xF0) | value;
+        } else {
+            b = (b & 0x0F) | (value << 4);
+        }
+        table[index / 2] = (byte) b;
+    }
+
+    private static int indexOf(int[] array, int value) {
+        for(int i = 0; i < array.length; i++) {
+            if(array[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int temp = array[i];
+        array[i] = array[j];
+        array[j] = temp;
+    }
+
+    private static int factorial(int n) {
+        int result = 1;
+        for(int i = 2; i <= n; i++) {
+            result *= i;
+        }
+        return result;
+    }
+}
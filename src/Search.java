@@ -6,12 +6,43 @@ import java.util.Queue;
 import java.util.PriorityQueue;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Search {
+    /* Rough per-state overhead: the State, Board, Node and their object headers, plus a hash set entry. */
+    private static final long STATE_OVERHEAD_BYTES = 160;
+    /* Rough per-tile cost: a Tile object plus its reference in the tiles array. */
+    private static final long TILE_BYTES = 24;
+    /* Process-wide budget shared by all searches that don't have an explicit one: half of the maximal heap size. */
+    private static final AtomicLong sharedBudget = new AtomicLong(Runtime.getRuntime().maxMemory() / 2);
+
+    private final long memoryBudget;  // 0 means a share of the process-wide budget
     private int expandedNodes;
     private List<Action> result;
     private Status status = Status.UNSOLVED;
 
+    /**
+     * Constructs a search that reserves half of the unreserved process-wide budget when it starts,
+     * and releases it when it's over. This way concurrent searches together never claim more than the shared budget.
+     */
+    public Search() {
+        this.memoryBudget = 0;
+    }
+
+    /**
+     * Constructs a search with an explicit memory budget.
+     * The budget bounds the estimated size of the frontier and the closed set together.
+     *
+     * @param memoryBudget Maximal number of bytes the search may use for stored states
+     * @throws IllegalArgumentException if the budget isn't positive
+     */
+    public Search(long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive: " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
     /**
      * Constructs the root node of the game based on an initial board.
      *
@@ -30,43 +61,162 @@ public class Search {
 
     /**
      * Performs a Greedy Best First Search, using node heuristic function.
+     * Small boards are answered from a precomputed endgame table instead.
+     * The stored states are kept within the memory budget, see {@link #bestFirstSearch(Node, EndgameTable, long)}.
      *
      * @param boardString String representing the initial board
      * @return List of actions which performing them will lead to the goal state
      */
     public List<Action> search(String boardString) {
+        Node root = getRoot(boardString);
+        Tile[][] rootTiles = root.getState().getBoard().getTiles();
+        int numOfRow = rootTiles.length;
+        int numOfCol = rootTiles[0].length;
+
+        EndgameTable table = EndgameTable.forShape(numOfRow, numOfCol);
+        if (table != null) {  // Small board - answer directly from the precomputed table
+            result = table.solve(root.getState());
+            status = (result != null) ? Status.SOLVED : Status.UNSOLVABLE;
+            return result;
+        }
+        /* Table of the bottom-right corner, used to finish the search once only the corner is left unsolved. */
+        EndgameTable corner = EndgameTable.forShape(Math.min(numOfRow, 3), Math.min(numOfCol, 3));
+
+        long budget = (memoryBudget > 0) ? memoryBudget : reserveSharedBudget();
         try {
-            Node root = getRoot(boardString);
-
-            Queue<Node> frontier = new PriorityQueue<>(Comparator.comparing(Node::heuristicValue));  // Stores future nodes
-            Set<State> enqueued = new HashSet<>();  // Used for duplicate detection
-            frontier.add(root);  // Add the root as the first node in the frontier
-            enqueued.add(root.getState());  // Mark the root as visited
-
-            while (!frontier.isEmpty()) {
-                Node node = frontier.remove();  // Get a node with smallest heuristic value
-                if (node.getState().isGoal()) {
-                    result = extractSolution(node);  // Extracting the solution
-                    status = Status.SOLVED;
-                    return result;
+            return bestFirstSearch(root, corner, budget / bytesPerState(root.getState()));
+        } catch (OutOfMemoryError err) {  // Last resort, the budget should keep the search from getting here
+            status = Status.OUT_OF_MEMORY;
+            return null;
+        } finally {
+            if (memoryBudget == 0) {
+                sharedBudget.addAndGet(budget);  // Release the reserved share
+            }
+        }
+    }
+
+    /**
+     * Performs the Greedy Best First Search while keeping at most maxStates states stored.
+     * When the budget is exceeded, the worse half of the frontier is dropped (beam-style). If the closed set alone
+     * still exceeds the budget, the search restarts from the best node found so far with an empty frontier and
+     * an empty closed set, so states seen before may be expanded again. A restart happens only if the best node
+     * improved since the previous restart, otherwise the search stops with OUT_OF_MEMORY and the path to the best
+     * node as a partial result.
+     *
+     * @param root The root node
+     * @param corner Table of the bottom-right corner of the board, or null if there is none
+     * @param maxStates Maximal number of states in the frontier and the closed set together
+     * @return List of actions which performing them will lead to the goal state
+     */
+    private List<Action> bestFirstSearch(Node root, EndgameTable corner, long maxStates) {
+        Queue<Node> frontier = new PriorityQueue<>(Comparator.comparing(Node::heuristicValue));  // Stores future nodes
+        Set<State> enqueued = new HashSet<>();  // Used for duplicate detection
+        frontier.add(root);  // Add the root as the first node in the frontier
+        enqueued.add(root.getState());  // Mark the root as visited
+        Node best = root;  // Expanded node closest to the goal, used as a partial result
+        Node restartedFrom = root;  // Node the current round of the search started from
+        boolean pruned = false;
+
+        while (!frontier.isEmpty()) {
+            Node node = frontier.remove();  // Get a node with smallest heuristic value
+            if (node.getState().isGoal()) {
+                result = extractSolution(node);  // Extracting the solution
+                status = Status.SOLVED;
+                return result;
+            }
+            List<Action> endgame = (corner != null) ? corner.solveCorner(node.getState()) : null;
+            if (endgame != null) {  // The rest of the solution is tabulated
+                result = extractSolution(node);
+                result.addAll(endgame);
+                status = Status.SOLVED;
+                return result;
+            }
+            if (node.heuristicValue() < best.heuristicValue()) {
+                best = node;
+            }
+            expandedNodes++;
+            Node[] children = node.expand();
+
+            for (Node child : children) {  // Iterate over all possible child nodes
+                if (!enqueued.contains(child.getState())) {  // Check for duplication
+                    enqueued.add(child.getState());  // Mark the child as visited
+                    frontier.add(child);
                 }
-                expandedNodes++;
-                Node[] children = node.expand();
+            }
 
-                for (Node child : children) {  // Iterate over all possible child nodes
-                    if (!enqueued.contains(child.getState())) {  // Check for duplication
-                        enqueued.add(child.getState());  // Mark the child as visited
-                        frontier.add(child);
+            if (enqueued.size() > maxStates) {  // Memory budget exceeded
+                pruneFrontier(frontier, enqueued);
+                pruned = true;
+                if (enqueued.size() > maxStates) {  // The closed set alone exceeds the budget
+                    if (best == restartedFrom) {  // No progress since the last restart
+                        result = extractSolution(best);  // Return the best partial result
+                        status = Status.OUT_OF_MEMORY;
+                        return null;
                     }
+                    restartedFrom = best;  // Restart from the best node, forgetting everything else
+                    frontier.clear();
+                    enqueued.clear();
+                    frontier.add(best);
+                    enqueued.add(best.getState());
                 }
             }
-            status = Status.UNSOLVABLE;  // Unsolvable board
-        } catch (OutOfMemoryError err) {  // Out of memory - probably due to an explosion of the frontier
+        }
+        if (pruned) {  // The frontier was emptied after pruning, so we can't tell the board is unsolvable
+            result = extractSolution(best);
             status = Status.OUT_OF_MEMORY;
+        } else {
+            status = Status.UNSOLVABLE;  // Unsolvable board
         }
         return null;
     }
 
+    /**
+     * Reserves half of the unreserved process-wide budget.
+     *
+     * @return Number of reserved bytes, which should be released back when the search is over
+     */
+    private static long reserveSharedBudget() {
+        while (true) {
+            long available = sharedBudget.get();
+            long share = available / 2;
+            if (sharedBudget.compareAndSet(available, available - share)) {
+                return share;
+            }
+        }
+    }
+
+    /**
+     * Drops the worse half of the frontier (beam-style) to bring the search back under its memory budget.
+     * The dropped states are also removed from the duplicate detection set, so they may be rediscovered later.
+     * Since the closed set isn't touched, this only delays the need to restart the search.
+     *
+     * @param frontier The frontier to prune
+     * @param enqueued The set of states seen so far
+     */
+    private void pruneFrontier(Queue<Node> frontier, Set<State> enqueued) {
+        int keep = frontier.size() / 2;
+        List<Node> kept = new ArrayList<>(keep);
+        while (kept.size() < keep) {
+            kept.add(frontier.remove());  // Nodes come out ordered by heuristic value, best first
+        }
+        for (Node node : frontier) {
+            enqueued.remove(node.getState());
+        }
+        frontier.clear();
+        frontier.addAll(kept);
+    }
+
+    /**
+     * Estimates the number of bytes needed to store a single state of the same board size.
+     *
+     * @param state A state of the searched board
+     * @return Estimated number of bytes per stored state
+     */
+    private long bytesPerState(State state) {
+        Tile[][] tiles = state.getBoard().getTiles();
+        return STATE_OVERHEAD_BYTES + (long) tiles.length * tiles[0].length * TILE_BYTES;
+    }
+
     /**
      * Extracts a solution from a given node by iterating backward from the node up to the root.
      * The given node satisfies node.getState().isGoal() == true.
@@ -89,6 +239,9 @@ public class Search {
         return status;
     }
 
+    /**
+     * @return The solution if the board was solved, or the best partial path if the memory budget ran out
+     */
     public List<Action> getResult() {
         return result;
     }